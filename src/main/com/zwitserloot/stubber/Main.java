@@ -20,6 +20,7 @@
  * THE SOFTWARE. */
 package com.zwitserloot.stubber;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -30,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.jar.JarFile;
 
 import lombok.Cleanup;
@@ -41,7 +43,9 @@ import com.zwitserloot.cmdreader.FullName;
 import com.zwitserloot.cmdreader.InvalidCommandLineException;
 import com.zwitserloot.cmdreader.Sequential;
 import com.zwitserloot.cmdreader.Shorthand;
+import com.zwitserloot.stubber.reader.ClassFiles;
 import com.zwitserloot.stubber.reader.DependencySweeper;
+import com.zwitserloot.stubber.reader.PlatformClassIndex;
 import com.zwitserloot.stubber.writer.StubJarWriter;
 
 public class Main {
@@ -59,6 +63,14 @@ public class Main {
 		@Description("class name prefix (example: \"java/\"; that one is added by default); any class with this prefix is not considered part of the API and is not scoured for further dependencies.")
 		List<String> exclude = new ArrayList<String>();
 		
+		@Shorthand("p")
+		@Description("Home directory of the JRE or JDK the stubs are meant for; any class it provides is not considered part of the API. Defaults to the running VM.")
+		String platform;
+		
+		@FullName("no-platform")
+		@Description("Don't exclude the classes provided by the platform; only `exclude` prefixes apply.")
+		boolean noPlatform;
+		
 		@Shorthand("i")
 		@Description("class name prefix (example: \"com/\"; any class NOT with this prefix is not considered part of the API and is not scoured for further dependencies.")
 		List<String> include = new ArrayList<String>();
@@ -72,6 +84,22 @@ public class Main {
 		@Description("Write a jar containing stubs to this file.")
 		String out;
 		
+		@FullName("max-depth")
+		@Description("Don't scan types that are more than this many references away from the nearest root. The types left unscanned are reported, and stubs are written for the rest.")
+		int maxDepth = Integer.MAX_VALUE;
+		
+		@FullName("max-types")
+		@Description("Stop scanning once this many types have been found. The types left unscanned are reported, and stubs are written for the rest.")
+		int maxTypes = Integer.MAX_VALUE;
+		
+		@FullName("time-limit")
+		@Description("Stop scanning after this many seconds. The types left unscanned are reported, and stubs are written for the rest.")
+		int timeLimit = Integer.MAX_VALUE;
+		
+		@Shorthand("w")
+		@Description("Keep running, and update the stub jar whenever class files in any of the roots are added, removed, or changed. Requires `out`.")
+		boolean watch;
+		
 		@Shorthand("v")
 		@Description("Show each class as it is stubbed. Implied if `out` is missing.")
 		boolean verbose;
@@ -108,14 +136,39 @@ public class Main {
 			return;
 		}
 		
+		if (args.maxDepth < 0 || args.maxTypes < 0 || args.timeLimit < 0) {
+			System.err.println("--max-depth, --max-types and --time-limit can't be negative.");
+			System.exit(5);
+			return;
+		}
+		
 		val urls = new ArrayList<URL>();
 		for (String cp : args.classpath) addClasspathEntry(urls, cp);
 		for (String rt : args.roots) addClasspathEntry(urls, rt);
 		
+		PlatformClassIndex platform = null;
+		if (args.platform != null && !args.noPlatform) {
+			try {
+				platform = PlatformClassIndex.forJavaHome(new File(args.platform));
+			} catch (IllegalArgumentException e) {
+				System.err.println("Invalid --platform: " + e.getMessage());
+				System.exit(5);
+				return;
+			}
+		}
+		
+		if (args.watch) {
+			if (args.out == null) {
+				System.err.println("--watch requires --out.");
+				System.exit(5);
+				return;
+			}
+			watch(args, urls, platform);
+			return;
+		}
+		
 		ClassLoader cl = new URLClassLoader(urls.toArray(new URL[0]));
-		val sweeper = new DependencySweeper(cl);
-		for (String exclude : args.exclude) sweeper.addExclusionPrefix(exclude);
-		for (String include : args.include) sweeper.addInclusionPrefix(include);
+		val sweeper = makeSweeper(args, platform, cl);
 		val startingPoints = new HashSet<String>();
 		startingPoints.addAll(args.types);
 		for (String rt : args.roots) {
@@ -129,6 +182,7 @@ public class Main {
 			return;
 		}
 		sweeper.fill(startingPoints);
+		reportFrontier(sweeper, args.verbose);
 		val typesToStub = sweeper.getTypeNames();
 		if (typesToStub.isEmpty()) {
 			System.out.println("Zero classes needed to stub; no stub file generated.");
@@ -139,6 +193,78 @@ public class Main {
 		if (args.out != null) new StubJarWriter(cl).write(typesToStub, args.out);
 	}
 	
+	private static DependencySweeper makeSweeper(CmdArgs args, PlatformClassIndex platform, ClassLoader cl) {
+		val sweeper = new DependencySweeper(cl);
+		for (String exclude : args.exclude) sweeper.addExclusionPrefix(exclude);
+		for (String include : args.include) sweeper.addInclusionPrefix(include);
+		sweeper.setMaxDepth(args.maxDepth);
+		sweeper.setMaxTypes(args.maxTypes);
+		if (args.timeLimit != Integer.MAX_VALUE) sweeper.setTimeLimit(args.timeLimit * 1000L);
+		if (args.noPlatform) sweeper.setPlatform(null);
+		else if (platform != null) sweeper.setPlatform(platform);
+		return sweeper;
+	}
+	
+	private static void watch(CmdArgs args, List<URL> urls, PlatformClassIndex platform) throws IOException, InterruptedException {
+		val roots = new ArrayList<String>();
+		for (String rt : args.roots) roots.addAll(asClasspathEntry(rt));
+		val watcher = new RootWatcher(roots);
+		
+		ClassLoader cl = new URLClassLoader(urls.toArray(new URL[0]));
+		val sweeper = makeSweeper(args, platform, cl);
+		val writer = new StubJarWriter(cl);
+		
+		Set<String> rootTypes = new HashSet<String>();
+		val changed = new HashSet<String>();
+		while (true) {
+			long start = System.currentTimeMillis();
+			val newRootTypes = new HashSet<String>(watcher.getTypes());
+			newRootTypes.addAll(args.types);
+			val removed = new HashSet<String>(rootTypes);
+			removed.removeAll(newRootTypes);
+			val added = new HashSet<String>(newRootTypes);
+			added.removeAll(rootTypes);
+			rootTypes = newRootTypes;
+			
+			try {
+				sweeper.removeRoots(removed);
+				if (!changed.isEmpty()) {
+					// A fresh classloader is needed; the old one may still hold on to the previous version of a jar file.
+					ClassLoader old = cl;
+					cl = new URLClassLoader(urls.toArray(new URL[0]));
+					try {
+						sweeper.invalidate(cl, changed);
+						writer.invalidate(cl, changed);
+					} finally {
+						close(old);
+					}
+				}
+				sweeper.addRoots(added);
+				reportFrontier(sweeper, args.verbose);
+				val typesToStub = sweeper.getTypeNames();
+				if (args.verbose) printAll(typesToStub, System.out);
+				writer.write(typesToStub, args.out);
+				changed.clear();
+				System.out.printf("Wrote %d stubs to %s in %d ms. Watching for changes...\n", typesToStub.size(), args.out, System.currentTimeMillis() - start);
+			} catch (IOException e) {
+				// Probably a class file that was still being written; the types in 'changed' are tried again next time.
+				System.out.printf("WARNING: Updating %s failed; will try again after the next change: %s\n", args.out, e);
+			}
+			
+			changed.addAll(watcher.awaitChanges());
+		}
+	}
+	
+	private static void close(ClassLoader cl) {
+		// URLClassLoader is Closeable since java 7; closing it releases its jar files.
+		if (!(cl instanceof Closeable)) return;
+		try {
+			((Closeable) cl).close();
+		} catch (IOException ignore) {
+			// Nothing we can do about it.
+		}
+	}
+	
 	private static Collection<String> findAllTypesIn(String rt) throws IOException {
 		File path = new File(rt);
 		if (path.isDirectory()) return findAllTypesIn(path);
@@ -156,34 +282,19 @@ public class Main {
 	}
 	
 	private static Collection<String> findAllTypesIn(JarFile jf) {
-		val col = new HashSet<String>();
-		val entries = jf.entries();
-		while (entries.hasMoreElements()) {
-			val entry = entries.nextElement();
-			String path = entry.getName();
-			if (path.endsWith(".class") && !entry.isDirectory()) {
-				col.add(path.substring(0, path.length() - ".class".length()));
-			}
-		}
-		return col;
+		return ClassFiles.inJar(jf).keySet();
 	}
 	
 	private static Collection<String> findAllTypesIn(File path) {
-		Collection<String> col = new HashSet<String>();
-		findAllTypesIn_(col, path);
-		return col;
+		return ClassFiles.inDirectory(path).keySet();
 	}
 	
-	private static void findAllTypesIn_(Collection<String> col, File path) {
-		for (File file : path.listFiles()) {
-			if (file.isDirectory()) findAllTypesIn_(col, file);
-			else if (file.isFile()) {
-				String pathName = file.getPath();
-				if (pathName.endsWith(".class")) {
-					col.add(pathName.substring(0, pathName.length() - ".class".length()));
-				}
-			}
-		}
+	private static void reportFrontier(DependencySweeper sweeper, boolean verbose) {
+		val frontier = sweeper.getFrontier();
+		if (frontier.isEmpty()) return;
+		System.out.printf("WARNING: Budget exhausted; %d types are part of the API but were not scanned and will not be stubbed.%s\n",
+				frontier.size(), verbose ? "" : " Use -v to list them.");
+		if (verbose) for (String type : frontier) System.out.println("  unscanned: " + type);
 	}
 	
 	private static void printAll(Collection<String> typesToStub, PrintStream out) {
@@ -0,0 +1,137 @@
+package com.zwitserloot.stubber;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+
+import lombok.Cleanup;
+import lombok.val;
+
+import com.google.common.collect.ImmutableList;
+import com.zwitserloot.stubber.reader.ClassFiles;
+
+/**
+ * Keeps track of the class files present in a list of directories and jar files, and reports which types have been
+ * added, removed, or changed since the last time it looked. There is no file system change notification API
+ * available to us, so this works by polling: directories are checked via file timestamps and sizes, and a jar
+ * is only re-read when its own timestamp or size changes, at which point the CRCs of its entries are compared.
+ * 
+ * Polling is quick while things are changing, and slows down the longer the roots stay unchanged, so that an idle
+ * watcher over a large tree doesn't keep a core busy.
+ */
+class RootWatcher {
+	private static final long POLL_INTERVAL = 100L;
+	private static final long MAX_IDLE_POLL_INTERVAL = 500L;
+	
+	private final List<File> roots;
+	private final Map<File, Long> jarStamps = new HashMap<File, Long>();
+	private final Map<File, Map<String, Long>> jarContents = new HashMap<File, Map<String, Long>>();
+	private Map<String, Long> current;
+	private Map<String, Long> last;
+	private boolean changing;
+	
+	RootWatcher(Collection<String> roots) throws IOException {
+		val list = ImmutableList.<File>builder();
+		for (String root : roots) list.add(new File(root));
+		this.roots = list.build();
+		this.current = scan();
+		this.last = current;
+	}
+	
+	/**
+	 * Returns all types found in the roots as of the last scan, in JVM-style naming (slashes and dollars, not dots).
+	 */
+	Set<String> getTypes() {
+		return current.keySet();
+	}
+	
+	/**
+	 * Blocks until at least one class file in the roots has changed, and then keeps waiting until the roots are no
+	 * longer changing, so that a compiler that's still busy writing class files doesn't cause a flurry of updates.
+	 * 
+	 * @return All types that were added, removed, or changed.
+	 */
+	Set<String> awaitChanges() throws InterruptedException {
+		long interval = POLL_INTERVAL;
+		while (true) {
+			Thread.sleep(interval);
+			val changed = poll();
+			if (changed != null) return changed;
+			interval = changing ? POLL_INTERVAL : Math.min(interval * 2, MAX_IDLE_POLL_INTERVAL);
+		}
+	}
+	
+	/**
+	 * Looks at the roots once. If they changed since the last time changes were reported, but not since the previous
+	 * call to this method, returns the types that were added, removed, or changed. Returns {@code null} otherwise.
+	 */
+	Set<String> poll() {
+		Map<String, Long> next;
+		try {
+			next = scan();
+		} catch (IOException e) {
+			// Most likely a jar file that is being written to right now.
+			changing = true;
+			return null;
+		}
+		
+		if (!next.equals(last)) {
+			changing = true;
+			last = next;
+			return null;
+		}
+		
+		if (!changing) return null;
+		changing = false;
+		val changed = diff(current, next);
+		current = next;
+		return changed.isEmpty() ? null : changed;
+	}
+	
+	private static Set<String> diff(Map<String, Long> a, Map<String, Long> b) {
+		val out = new HashSet<String>();
+		for (val e : a.entrySet()) {
+			if (!e.getValue().equals(b.get(e.getKey()))) out.add(e.getKey());
+		}
+		for (String type : b.keySet()) {
+			if (!a.containsKey(type)) out.add(type);
+		}
+		return out;
+	}
+	
+	private Map<String, Long> scan() throws IOException {
+		val out = new HashMap<String, Long>();
+		for (File root : roots) {
+			if (root.isDirectory()) scanDirectory(out, root);
+			else if (root.isFile()) out.putAll(scanJar(root));
+		}
+		return out;
+	}
+	
+	private static void scanDirectory(Map<String, Long> out, File dir) {
+		for (val e : ClassFiles.inDirectory(dir).entrySet()) {
+			File file = e.getValue();
+			// Timestamps alone can be too coarse to notice two quick successive saves; the size usually differs.
+			out.put(e.getKey(), file.lastModified() * 31 + file.length());
+		}
+	}
+	
+	private Map<String, Long> scanJar(File jar) throws IOException {
+		Long stamp = jar.lastModified() * 31 + jar.length();
+		Map<String, Long> contents = jarContents.get(jar);
+		if (contents != null && stamp.equals(jarStamps.get(jar))) return contents;
+		
+		contents = new HashMap<String, Long>();
+		@Cleanup JarFile jf = new JarFile(jar);
+		for (val e : ClassFiles.inJar(jf).entrySet()) contents.put(e.getKey(), e.getValue().getCrc());
+		jarStamps.put(jar, stamp);
+		jarContents.put(jar, contents);
+		return contents;
+	}
+}
@@ -10,6 +10,7 @@ import lombok.experimental.Value;
 
 @Value
 public class ClassFile {
+	private final int access;
 	private final Collection<String> parents;
 	private final String name;
 	private final Collection<FieldModel> fields;
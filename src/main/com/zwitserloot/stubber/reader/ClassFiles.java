@@ -0,0 +1,73 @@
+package com.zwitserloot.stubber.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+/**
+ * Lists the class files in jar files and directories, keyed by type name in JVM-style naming (slashes and dollars, not dots),
+ * and reads class files with ASM.
+ */
+public class ClassFiles {
+	private ClassFiles() {
+		//Prevent instantiation
+	}
+	
+	/**
+	 * Returns all class file entries in the given jar.
+	 */
+	public static Map<String, ZipEntry> inJar(JarFile jar) {
+		Map<String, ZipEntry> out = new HashMap<String, ZipEntry>();
+		Enumeration<? extends ZipEntry> entries = jar.entries();
+		while (entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			String path = entry.getName();
+			if (path.endsWith(".class") && !entry.isDirectory()) {
+				out.put(path.substring(0, path.length() - ".class".length()), entry);
+			}
+		}
+		return out;
+	}
+	
+	/**
+	 * Returns all class files in the given directory and its subdirectories. Type names are relative to {@code dir}.
+	 */
+	public static Map<String, File> inDirectory(File dir) {
+		Map<String, File> out = new HashMap<String, File>();
+		inDirectory(out, dir, "");
+		return out;
+	}
+	
+	private static void inDirectory(Map<String, File> out, File dir, String prefix) {
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		for (File file : files) {
+			String name = file.getName();
+			// Checking the name first saves a file system call for each class file; these trees can be large.
+			if (name.endsWith(".class")) out.put(prefix + name.substring(0, name.length() - ".class".length()), file);
+			else if (file.isDirectory()) inDirectory(out, file, prefix + name + "/");
+		}
+	}
+	
+	/**
+	 * Feeds the class file of {@code type} to {@code visitor}. A truncated or otherwise malformed class file, for example
+	 * one that a compiler is still writing, is reported as an {@code IOException}.
+	 */
+	public static void accept(String type, byte[] classData, ClassVisitor visitor, int flags) throws IOException {
+		// These are what ASM throws when it runs off the end of the data or finds garbage where it expects a constant.
+		try {
+			new ClassReader(classData).accept(visitor, flags);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Can't parse class file of " + type, e);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Can't parse class file of " + type, e);
+		}
+	}
+}
@@ -3,13 +3,16 @@ package com.zwitserloot.stubber.reader;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import lombok.Cleanup;
@@ -38,9 +41,14 @@ public class DependencySweeper {
 		return (access & (Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED)) != 0;
 	}
 	
-	private final ClassLoader cl;
+	private ClassLoader cl;
 	private final List<String> exclusionPrefixes = new ArrayList<String>();
 	private final List<String> inclusionPrefixes = new ArrayList<String>();
+	private PlatformClassIndex platform;
+	private boolean platformSet;
+	private int maxDepth = Integer.MAX_VALUE;
+	private int maxTypes = Integer.MAX_VALUE;
+	private long timeLimit = Long.MAX_VALUE;
 	
 	public DependencySweeper() {
 		this(ClassLoader.getSystemClassLoader());
@@ -66,41 +74,86 @@ public class DependencySweeper {
 		this.inclusionPrefixes.add(prefix);
 	}
 	
-	private Map<String, ClassFile> map = new HashMap<String, ClassFile>();
+	/**
+	 * Any class provided by the given platform is presumed to be available and thus does not need to be stubbed out.
+	 * By default, this is the platform of the running VM ({@link PlatformClassIndex#forRuntime()}).
+	 * Pass {@code null} to only use exclusion prefixes.
+	 */
+	public void setPlatform(PlatformClassIndex platform) {
+		this.platform = platform;
+		this.platformSet = true;
+	}
 	
-	private Map<String, ClassFile> round(Collection<String> types, boolean skipPrivateAndPackagePrivate) throws IOException {
-		Map<String, ClassFile> map = new HashMap<String, ClassFile>();
-		
-		outer:
-		for (String t : types) {
-			for (String ex : exclusionPrefixes) if (t.startsWith(ex)) continue outer;
-			boolean foundInIncList = inclusionPrefixes.isEmpty();
-			for (String inc : inclusionPrefixes) {
-				if (t.startsWith(inc)) {
-					foundInIncList = true;
-					break;
-				}
-			}
-			if (!foundInIncList) continue outer;
-			@Cleanup val in = cl.getResourceAsStream(t + ".class");
-			if (in == null) {
-				System.out.printf("WARNING: Can't find class; it will not be stubbed and it will not be scanned for further dependencies to stub: %s\n", t);
-				continue;
+	/**
+	 * Types that are more than {@code maxDepth} references away from the nearest root are not scanned, and are
+	 * reported by {@link #getFrontier()} instead. Roots have depth 0.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		if (maxDepth < 0) throw new IllegalArgumentException("maxDepth: " + maxDepth);
+		this.maxDepth = maxDepth;
+	}
+	
+	/**
+	 * Stops scanning once the API contains {@code maxTypes} types; the types not scanned yet are reported by {@link #getFrontier()}.
+	 */
+	public void setMaxTypes(int maxTypes) {
+		if (maxTypes < 0) throw new IllegalArgumentException("maxTypes: " + maxTypes);
+		this.maxTypes = maxTypes;
+	}
+	
+	/**
+	 * Each call that scans types ({@link #addRoots(Collection)}, {@link #invalidate(ClassLoader, Collection)}, and
+	 * {@link #resume()}) stops after roughly this many milliseconds; the types not scanned yet are reported by {@link #getFrontier()}.
+	 */
+	public void setTimeLimit(long millis) {
+		if (millis < 0) throw new IllegalArgumentException("millis: " + millis);
+		this.timeLimit = millis;
+	}
+	
+	private final Set<String> roots = new HashSet<String>();
+	private final Map<String, ClassFile> map = new HashMap<String, ClassFile>();
+	private final Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+	private final Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+	private final Map<String, Integer> depths = new HashMap<String, Integer>();
+	private final PriorityQueue<Pending> frontier = new PriorityQueue<Pending>();
+	/** For each type in {@code frontier}, the depth of its closest entry; entries further away are stale and skipped. */
+	private final Map<String, Integer> queued = new HashMap<String, Integer>();
+	private final Map<String, ClassFile> parsed = new HashMap<String, ClassFile>();
+	private final Set<String> missing = new HashSet<String>();
+	
+	private boolean accept(String t) {
+		for (String ex : exclusionPrefixes) if (t.startsWith(ex)) return false;
+		boolean foundInIncList = inclusionPrefixes.isEmpty();
+		for (String inc : inclusionPrefixes) {
+			if (t.startsWith(inc)) {
+				foundInIncList = true;
+				break;
 			}
-			byte[] classData = ByteStreams.toByteArray(in);
-			in.close();
-			
-			val cf = make(classData, skipPrivateAndPackagePrivate);
-			
-			if (cf != null) map.put(t, cf);
 		}
+		if (!foundInIncList) return false;
+		return platform == null || !platform.contains(t);
+	}
+	
+	private ClassFile parse(String t) throws IOException {
+		ClassFile cf = parsed.get(t);
+		if (cf != null || missing.contains(t)) return cf;
 		
-		return map;
+		@Cleanup val in = cl.getResourceAsStream(t + ".class");
+		if (in == null) {
+			System.out.printf("WARNING: Can't find class; it will not be stubbed and it will not be scanned for further dependencies to stub: %s\n", t);
+			missing.add(t);
+			return null;
+		}
+		byte[] classData = ByteStreams.toByteArray(in);
+		in.close();
+		
+		cf = make(t, classData);
+		parsed.put(t, cf);
+		return cf;
 	}
 	
 	/**
-	 * Returns all added types in the {@link #fill(Collection)} method, as well as further public API
-	 * dependencies of those types.
+	 * Returns all types added as roots, as well as further public API dependencies of those types.
 	 */
 	public Collection<String> getTypeNames() {
 		return map.keySet();
@@ -110,32 +163,237 @@ public class DependencySweeper {
 	 * Adds the given types to the list of public API, and recursively scans all public parts of all
 	 * signatures in the class for more types that are part of the API.
 	 * 
-	 * The result can be queried via {@link #getTypeNames()}.
+	 * The result can be queried via {@link #getTypeNames()}. This is the same as {@link #addRoots(Collection)}.
 	 */
 	public void fill(Collection<String> initialTypes) throws IOException {
-		Map<String, ClassFile> roundResult = round(initialTypes, true);
+		addRoots(initialTypes);
+	}
+	
+	/**
+	 * Adds the given types as roots of the public API, and scans each type that wasn't part of the API yet for further
+	 * dependencies. Roots that aren't public or protected are skipped, unless some other type in the API refers to them.
+	 */
+	public void addRoots(Collection<String> types) throws IOException {
+		for (String t : types) if (roots.add(t)) enqueue(t, 0);
+		expand();
+	}
+	
+	/**
+	 * Continues scanning where the last call stopped because the budget ran out. Raise the budget first if the sweep
+	 * stopped because of the depth or type limits.
+	 */
+	public void resume() throws IOException {
+		expand();
+	}
+	
+	/**
+	 * Returns the types that are part of the API, but which weren't scanned (and thus aren't in {@link #getTypeNames()})
+	 * because the budget ran out. The closest types come first. If the sweep is complete, the result is empty.
+	 */
+	public Collection<String> getFrontier() {
+		val out = new LinkedHashSet<String>();
+		val pending = frontier.toArray(new Pending[0]);
+		Arrays.sort(pending);
+		for (Pending p : pending) {
+			String t = p.type;
+			if (!map.containsKey(t) && accept(t) && isLive(t)) out.add(t);
+		}
+		return out;
+	}
+	
+	/**
+	 * Removes the given types as roots of the public API, and drops each type that is no longer reachable from the
+	 * remaining roots. Only the types reachable from the removed roots are looked at.
+	 */
+	public void removeRoots(Collection<String> types) {
+		val suspects = new HashSet<String>();
+		for (String t : types) if (roots.remove(t)) suspects.add(t);
+		drop(suspects);
+	}
+	
+	/**
+	 * Forgets everything learned about the listed types and switches to the given classloader to find class files
+	 * from now on. The listed types are read again, and the types they depend on are added or dropped accordingly.
+	 * Class files of types not listed are presumed unchanged and are not read again.
+	 */
+	public void invalidate(ClassLoader cl, Collection<String> changedTypes) throws IOException {
+		if (cl == null) throw new NullPointerException("cl");
+		this.cl = cl;
+		val suspects = new HashSet<String>();
+		val changed = new ArrayList<String>();
+		for (String t : changedTypes) {
+			parsed.remove(t);
+			missing.remove(t);
+			if (map.containsKey(t)) {
+				suspects.addAll(dependencies.get(t));
+				remove(t);
+				queued.remove(t);
+			}
+			changed.add(t);
+		}
+		drop(suspects);
+		for (String t : changed) {
+			if (isLive(t)) enqueue(t, depthOf(t));
+		}
+		expand();
+	}
+	
+	private int depthOf(String t) {
+		if (roots.contains(t)) return 0;
+		int depth = Integer.MAX_VALUE;
+		for (String r : dependents.get(t)) depth = Math.min(depth, depths.get(r) + 1);
+		return depth;
+	}
+	
+	private boolean isLive(String t) {
+		return roots.contains(t) || dependents.containsKey(t);
+	}
+	
+	/**
+	 * Queues {@code t} to be scanned at the given depth, or, if it was already scanned, to have its depth lowered.
+	 * Does nothing if {@code t} is already known or queued at that depth or closer.
+	 */
+	private void enqueue(String t, int depth) {
+		Integer known = depths.get(t);
+		if (known != null && known <= depth) return;
+		known = queued.get(t);
+		if (known != null && known <= depth) return;
+		queued.put(t, depth);
+		frontier.add(new Pending(t, depth));
+	}
+	
+	private void expand() throws IOException {
+		if (!platformSet) setPlatform(PlatformClassIndex.forRuntime());
+		long start = System.currentTimeMillis();
+		// New types found after the type limit is reached are put back afterwards; depth corrections don't add types and still go ahead.
+		val deferred = new ArrayList<Pending>();
+		
+		try {
+			while (!frontier.isEmpty()) {
+				Pending next = frontier.peek();
+				if (next.depth > maxDepth || System.currentTimeMillis() - start >= timeLimit) return;
+				frontier.poll();
+				String t = next.type;
+				Integer closest = queued.get(t);
+				if (closest == null || closest != next.depth) continue;
+				if (map.containsKey(t)) {
+					// Found a shorter path to a type that was already scanned, for example because it became a root itself.
+					queued.remove(t);
+					if (next.depth < depths.get(t)) {
+						depths.put(t, next.depth);
+						for (String d : dependencies.get(t)) enqueue(d, next.depth + 1);
+					}
+					continue;
+				}
+				if (map.size() >= maxTypes) {
+					deferred.add(next);
+					continue;
+				}
+				queued.remove(t);
+				if (!accept(t)) continue;
+				// The types that referred to this one may have been dropped since.
+				if (!isLive(t)) continue;
+				val cf = parse(t);
+				if (cf == null) continue;
+				if (!isVisible(cf.getAccess()) && !dependents.containsKey(t)) continue;
+				
+				map.put(t, cf);
+				depths.put(t, next.depth);
+				val deps = new HashSet<String>();
+				for (String d : cf.getTypeNamesInSignatures()) if (accept(d)) deps.add(d);
+				dependencies.put(t, deps);
+				for (String d : deps) {
+					Set<String> s = dependents.get(d);
+					if (s == null) dependents.put(d, s = new HashSet<String>());
+					s.add(t);
+					enqueue(d, next.depth + 1);
+				}
+			}
+		} finally {
+			frontier.addAll(deferred);
+		}
+	}
+	
+	private void drop(Set<String> suspects) {
+		// Only types reachable from the suspects can have lost their path to a root.
+		val candidates = new HashSet<String>();
+		val todo = new ArrayDeque<String>(suspects);
+		while (!todo.isEmpty()) {
+			String t = todo.poll();
+			if (!map.containsKey(t) || !candidates.add(t)) continue;
+			todo.addAll(dependencies.get(t));
+		}
+		
+		// A candidate stays if it's a root in its own right, or if a type that isn't a candidate refers to it. Candidates can only
+		// have moved further away from the roots, so their depths are worked out again, closest first.
+		val queue = new PriorityQueue<Pending>();
+		for (String t : candidates) {
+			if (roots.contains(t) && isVisible(map.get(t).getAccess())) queue.add(new Pending(t, 0));
+			Set<String> refs = dependents.get(t);
+			if (refs == null) continue;
+			for (String r : refs) {
+				if (!candidates.contains(r)) queue.add(new Pending(t, depths.get(r) + 1));
+			}
+		}
+		
+		val reachable = new HashMap<String, Integer>();
+		val tooDeep = new HashMap<String, Integer>();
+		while (!queue.isEmpty()) {
+			Pending p = queue.poll();
+			if (reachable.containsKey(p.type) || tooDeep.containsKey(p.type)) continue;
+			if (p.depth > maxDepth) {
+				tooDeep.put(p.type, p.depth);
+				continue;
+			}
+			reachable.put(p.type, p.depth);
+			for (String d : dependencies.get(p.type)) {
+				if (candidates.contains(d)) queue.add(new Pending(d, p.depth + 1));
+			}
+		}
 		
-		while (true) {
-			for (String key : map.keySet()) roundResult.remove(key);
-			map.putAll(roundResult);
-			Set<String> newTypes = new HashSet<String>();
-			for (ClassFile cf : roundResult.values()) {
-				cf.addTypeNamesInSignatures(newTypes);
+		for (String t : candidates) {
+			// Any pending depth correction may have come by way of a type that's gone now.
+			queued.remove(t);
+			Integer depth = reachable.get(t);
+			if (depth != null) {
+				depths.put(t, depth);
+				continue;
 			}
-			newTypes.removeAll(map.keySet());
-			if (newTypes.isEmpty()) break;
-			roundResult = round(newTypes, false);
+			remove(t);
+			// Still part of the API, but now beyond the depth limit; it goes back to the frontier.
+			depth = tooDeep.get(t);
+			if (depth != null) enqueue(t, depth);
+		}
+		
+		// Entries for types that are no longer part of the API would otherwise stay in the frontier forever once the budget runs out.
+		val kept = new HashSet<String>();
+		for (Iterator<Pending> it = frontier.iterator(); it.hasNext();) {
+			Pending p = it.next();
+			Integer closest = queued.get(p.type);
+			if (closest != null && closest == p.depth && isLive(p.type) && kept.add(p.type)) continue;
+			it.remove();
+			if (closest != null && !isLive(p.type)) queued.remove(p.type);
+		}
+	}
+	
+	private void remove(String t) {
+		map.remove(t);
+		depths.remove(t);
+		for (String d : dependencies.remove(t)) {
+			Set<String> s = dependents.get(d);
+			s.remove(t);
+			if (s.isEmpty()) dependents.remove(d);
 		}
 	}
 	
-	private ClassFile make(byte[] classData, final boolean skipPrivateAndPackagePrivate) {
+	private ClassFile make(String type, byte[] classData) throws IOException {
 		val fields = new ArrayList<FieldModel>();
 		val methods = new ArrayList<MethodModel>();
 		val parents = new ArrayList<String>();
 		val result = new AtomicReference<ClassFile>();
-		val skip = new AtomicBoolean();
 		
 		ClassVisitor scanner = new ClassVisitor(Opcodes.ASM4) {
+			private int access;
 			private String name;
 			private String signature;
 			
@@ -155,24 +413,33 @@ public class DependencySweeper {
 			}
 			
 			@Override public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-				if (!isVisible(access) && skipPrivateAndPackagePrivate) {
-					skip.set(true);
-				} else {
-					if (superName != null) parents.add(superName);
-					if (interfaces != null) for (String intf : interfaces) parents.add(intf);
-					this.name = name;
-					this.signature = signature;
-					super.visit(version, access, name, signature, superName, interfaces);
-				}
+				if (superName != null) parents.add(superName);
+				if (interfaces != null) for (String intf : interfaces) parents.add(intf);
+				this.access = access;
+				this.name = name;
+				this.signature = signature;
+				super.visit(version, access, name, signature, superName, interfaces);
 			}
 			
 			@Override public void visitEnd() {
-				result.set(new ClassFile(parents, name, fields, methods, signature));
+				result.set(new ClassFile(access, parents, name, fields, methods, signature));
 			}
 		};
 		
-		new ClassReader(classData).accept(scanner, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-		return skip.get() ? null : result.get();
+		ClassFiles.accept(type, classData, scanner, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		return result.get();
+	}
+	
+	@RequiredArgsConstructor
+	private static class Pending implements Comparable<Pending> {
+		final String type;
+		final int depth;
+		
+		/** Closest to the roots first; within the same depth, by name, which keeps packages together. */
+		@Override public int compareTo(Pending o) {
+			if (depth != o.depth) return depth < o.depth ? -1 : 1;
+			return type.compareTo(o.type);
+		}
 	}
 	
 	@RequiredArgsConstructor
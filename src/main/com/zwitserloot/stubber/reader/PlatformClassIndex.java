@@ -0,0 +1,188 @@
+package com.zwitserloot.stubber.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import lombok.Cleanup;
+import lombok.val;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Knows all classes provided by a java platform (a JRE or JDK), so that {@link DependencySweeper} can skip them with
+ * a single lookup instead of needing an exclusion prefix for {@code javax/}, {@code sun/}, {@code javafx/}, and friends.
+ * 
+ * For JDKs that have one (java 9 and up), the index is built from {@code lib/ct.sym}, which lists the API of every module of
+ * the platform for each release it can compile against. The newest release listed there is used. ct.sym only covers exported
+ * packages, and not the JDK's own release (that is served from its module image), so for the running VM each type that
+ * isn't in the index is also looked up in the module image once, and the answer is remembered. That way {@code sun/},
+ * {@code jdk/internal/} and types new in the running release are known as well. Other JREs and JDKs of version 9 and up
+ * need a {@code lib/ct.sym}. Older platforms are indexed by listing their jar files.
+ * 
+ * Instances are shared and safe to use from multiple threads.
+ */
+public class PlatformClassIndex {
+	private static final Map<File, PlatformClassIndex> CACHE = new HashMap<File, PlatformClassIndex>();
+	
+	private final Set<String> types;
+	private final boolean probeRuntime;
+	private final ConcurrentMap<String, Boolean> probed = new ConcurrentHashMap<String, Boolean>();
+	
+	private PlatformClassIndex(Set<String> types, boolean probeRuntime) {
+		this.types = types;
+		this.probeRuntime = probeRuntime;
+	}
+	
+	/**
+	 * Returns the index for the VM that is running right now. The index is built only once.
+	 */
+	public static PlatformClassIndex forRuntime() throws IOException {
+		File home = new File(System.getProperty("java.home")).getCanonicalFile();
+		synchronized (CACHE) {
+			PlatformClassIndex index = CACHE.get(home);
+			if (index != null) return index;
+			
+			Set<String> types = readCtSym(new File(home, "lib/ct.sym"));
+			if (types == null) {
+				val jars = new ArrayList<File>();
+				String bootPath = System.getProperty("sun.boot.class.path");
+				if (bootPath != null) {
+					for (String entry : bootPath.split(File.pathSeparator)) addIfJar(jars, new File(entry));
+				}
+				String extDirs = System.getProperty("java.ext.dirs");
+				if (extDirs != null) {
+					for (String dir : extDirs.split(File.pathSeparator)) addJarsIn(jars, new File(dir));
+				}
+				types = readJars(jars);
+			}
+			
+			index = new PlatformClassIndex(types, true);
+			CACHE.put(home, index);
+			return index;
+		}
+	}
+	
+	/**
+	 * Returns the index for the JRE or JDK installed in the given directory. The index is built only once per directory.
+	 * 
+	 * @throws IllegalArgumentException If {@code javaHome} contains neither a {@code lib/ct.sym} nor platform jar files, or if it
+ *     is a java 9 or up JRE, which has no {@code lib/ct.sym}.
+	 */
+	public static PlatformClassIndex forJavaHome(File javaHome) throws IOException {
+		File home = javaHome.getCanonicalFile();
+		if (home.equals(new File(System.getProperty("java.home")).getCanonicalFile())) return forRuntime();
+		
+		synchronized (CACHE) {
+			PlatformClassIndex index = CACHE.get(home);
+			if (index != null) return index;
+			
+			Set<String> types = readCtSym(new File(home, "lib/ct.sym"));
+			if (types == null) {
+				// The only jar file in there is jrt-fs.jar; the platform classes themselves are in the module image.
+				if (new File(home, "lib/modules").isFile()) throw new IllegalArgumentException("Java 9 and up needs a JDK, not a JRE (no lib/ct.sym): " + home);
+				File lib = new File(home, "jre/lib");
+				if (!lib.isDirectory()) lib = new File(home, "lib");
+				val jars = new ArrayList<File>();
+				addJarsIn(jars, lib);
+				addJarsIn(jars, new File(lib, "ext"));
+				if (jars.isEmpty()) throw new IllegalArgumentException("Not a JRE or JDK (no lib/ct.sym and no platform jar files): " + home);
+				types = readJars(jars);
+			}
+			
+			index = new PlatformClassIndex(types, false);
+			CACHE.put(home, index);
+			return index;
+		}
+	}
+	
+	/**
+	 * Returns {@code true} if the platform provides the given type. Uses JVM-style naming (slashes and dollars, not dots).
+	 */
+	public boolean contains(String type) {
+		if (types.contains(type)) return true;
+		if (!probeRuntime) return false;
+		
+		Boolean found = probed.get(type);
+		if (found == null) {
+			// Class files are never encapsulated, and those of the platform itself all come from the 'jrt' file system.
+			URL url = ClassLoader.getSystemResource(type + ".class");
+			found = url != null && "jrt".equals(url.getProtocol());
+			probed.put(type, found);
+		}
+		return found;
+	}
+	
+	private static void addIfJar(List<File> jars, File file) {
+		if (file.isFile() && file.getName().endsWith(".jar")) jars.add(file);
+	}
+	
+	private static void addJarsIn(List<File> jars, File dir) {
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		for (File file : files) addIfJar(jars, file);
+	}
+	
+	private static Set<String> readJars(List<File> jars) throws IOException {
+		val types = ImmutableSet.<String>builder();
+		for (File jar : jars) {
+			@Cleanup JarFile jf = new JarFile(jar);
+			types.addAll(ClassFiles.inJar(jf).keySet());
+		}
+		return types.build();
+	}
+	
+	/**
+	 * ct.sym entries look like {@code 9ABC/java.base/java/lang/Object.sig}: the first part lists each release (7, 8, 9, A for
+	 * 10, B for 11, and so on) the entry applies to, and the second part is the module. Old JDKs use a different layout
+	 * which has no entries like this; for those (and if there is no ct.sym at all), {@code null} is returned.
+	 */
+	private static Set<String> readCtSym(File ctSym) throws IOException {
+		if (!ctSym.isFile()) return null;
+		@Cleanup JarFile jf = new JarFile(ctSym);
+		
+		char newest = 0;
+		Enumeration<? extends ZipEntry> entries = jf.entries();
+		while (entries.hasMoreElements()) {
+			String name = entries.nextElement().getName();
+			int slash = name.indexOf('/');
+			if (slash == -1 || !name.endsWith(".sig")) continue;
+			for (int i = 0; i < slash; i++) {
+				char release = name.charAt(i);
+				if (releaseNumber(release) > releaseNumber(newest)) newest = release;
+			}
+		}
+		if (newest == 0) return null;
+		
+		val types = new HashSet<String>();
+		entries = jf.entries();
+		while (entries.hasMoreElements()) {
+			String name = entries.nextElement().getName();
+			int slash = name.indexOf('/');
+			if (slash == -1 || !name.endsWith(".sig") || name.lastIndexOf(newest, slash) == -1) continue;
+			int start = slash + 1;
+			int next = name.indexOf('/', start);
+			// Module names contain dots, package names never do.
+			if (next != -1 && name.lastIndexOf('.', next) > slash) start = next + 1;
+			types.add(name.substring(start, name.length() - ".sig".length()));
+		}
+		return ImmutableSet.copyOf(types);
+	}
+	
+	private static int releaseNumber(char c) {
+		if (c >= '0' && c <= '9') return c - '0';
+		if (c >= 'A' && c <= 'Z') return c - 'A' + 10;
+		return -1;
+	}
+}
@@ -1,8 +1,10 @@
 package com.zwitserloot.stubber.writer;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.jar.JarOutputStream;
 import java.util.zip.ZipEntry;
@@ -19,6 +21,7 @@ import org.objectweb.asm.Opcodes;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteStreams;
+import com.zwitserloot.stubber.reader.ClassFiles;
 
 /**
  * Creates a jar file containing just stubs for a given list of types. Only public/protected members
@@ -29,7 +32,8 @@ public class StubJarWriter {
 		return (access & (Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED)) != 0;
 	}
 	
-	private final ClassLoader cl;
+	private ClassLoader cl;
+	private final Map<String, byte[]> stubs = new HashMap<String, byte[]>();
 	
 	public StubJarWriter() {
 		this(ClassLoader.getSystemClassLoader());
@@ -39,18 +43,59 @@ public class StubJarWriter {
 		this.cl = cl;
 	}
 	
+	/**
+	 * Writes a stub for each of the given types to a jar file. The jar is first written to a temporary file next to
+	 * {@code fileName} and then moved into place, so that readers never see a half-written jar.
+	 * 
+	 * Stubs are remembered, so writing the same types again only generates stubs for types that are new or have been
+	 * passed to {@link #invalidate(ClassLoader, Collection)}.
+	 */
 	public void write(Collection<String> types, String fileName) throws IOException {
-		@Cleanup val fos = new FileOutputStream(fileName);
-		@Cleanup val out = new JarOutputStream(fos);
+		File target = new File(fileName).getAbsoluteFile();
+		File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
 		
-		for (String type : types) {
-			@Cleanup val in = cl.getResourceAsStream(type + ".class");
-			if (in == null) continue;
-			byte[] classData = ByteStreams.toByteArray(in);
-			in.close();
-			out.putNextEntry(new ZipEntry(type + ".class"));
-			writeStub(out, classData);
+		try {
+			@Cleanup val fos = new FileOutputStream(tmp);
+			@Cleanup val out = new JarOutputStream(fos);
+			
+			for (String type : types) {
+				byte[] stub = stub(type);
+				if (stub == null) continue;
+				out.putNextEntry(new ZipEntry(type + ".class"));
+				out.write(stub);
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
 		}
+		
+		if (!tmp.renameTo(target)) {
+			target.delete();
+			if (!tmp.renameTo(target)) throw new IOException("Can't move " + tmp + " to " + target);
+		}
+	}
+	
+	/**
+	 * Forgets the stubs generated for the listed types and switches to the given classloader to find class files
+	 * from now on.
+	 */
+	public void invalidate(ClassLoader cl, Collection<String> changedTypes) {
+		if (cl == null) throw new NullPointerException("cl");
+		this.cl = cl;
+		for (String type : changedTypes) stubs.remove(type);
+	}
+	
+	private byte[] stub(String type) throws IOException {
+		byte[] stub = stubs.get(type);
+		if (stub != null) return stub;
+		
+		@Cleanup val in = cl.getResourceAsStream(type + ".class");
+		if (in == null) return null;
+		byte[] classData = ByteStreams.toByteArray(in);
+		in.close();
+		stub = makeStub(type, classData);
+		stubs.put(type, stub);
+		return stub;
 	}
 	
 	private static final Map<Character, int[]> FOO = ImmutableMap.<Character, int[]>builder()
@@ -67,9 +112,9 @@ public class StubJarWriter {
 			.put('D', new int[] {Opcodes.DCONST_0, Opcodes.DRETURN})
 			.build();
 	
-	private void writeStub(JarOutputStream out, byte[] classData) throws IOException {
+	private byte[] makeStub(String type, byte[] classData) throws IOException {
 		ClassWriter cw = new ClassWriter(0);
-		new ClassReader(classData).accept(new ClassVisitor(Opcodes.ASM4, cw) {
+		ClassFiles.accept(type, classData, new ClassVisitor(Opcodes.ASM4, cw) {
 			@Override public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
 				if (isVisible(access)) {
 					return super.visitField(access, name, desc, signature, value);
@@ -92,6 +137,6 @@ public class StubJarWriter {
 				return null;
 			}
 		}, ClassReader.SKIP_CODE);
-		out.write(cw.toByteArray());
+		return cw.toByteArray();
 	}
 }
@@ -0,0 +1,191 @@
+package com.zwitserloot.stubber;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+
+import lombok.val;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.zwitserloot.stubber.reader.DependencySweeper;
+
+public class TestIncrementalSweep {
+	private static final String PREFIX = "com/zwitserloot/stubber/TestIncrementalSweep$";
+	
+	public static class A {
+		public B b;
+	}
+	
+	public static class B {
+		public C c() {
+			return null;
+		}
+	}
+	
+	public static class C {
+		public B b;
+	}
+	
+	public static class D {
+		public C c;
+	}
+	
+	public static class P {
+		public Q q;
+	}
+	
+	public static class Q {
+		public R r;
+	}
+	
+	public static class R {
+		public S s;
+	}
+	
+	public static class S {
+		public T t;
+	}
+	
+	public static class T {
+	}
+	
+	public static class U {
+		public S s;
+	}
+	
+	private static Set<String> types(String... names) {
+		val out = ImmutableSet.<String>builder();
+		for (String name : names) out.add(PREFIX + name);
+		return out.build();
+	}
+	
+	private static DependencySweeper sweeper() {
+		val sweeper = new DependencySweeper(TestIncrementalSweep.class.getClassLoader());
+		sweeper.addInclusionPrefix(PREFIX);
+		return sweeper;
+	}
+	
+	private static Set<String> asSet(Collection<String> types) {
+		return ImmutableSet.copyOf(types);
+	}
+	
+	@Test
+	public void testAddAndRemoveRoots() throws IOException {
+		val sweeper = sweeper();
+		sweeper.addRoots(types("A"));
+		assertEquals(types("A", "B", "C"), asSet(sweeper.getTypeNames()));
+		
+		sweeper.addRoots(types("D"));
+		assertEquals(types("A", "B", "C", "D"), asSet(sweeper.getTypeNames()));
+		
+		sweeper.removeRoots(types("A"));
+		assertEquals(types("B", "C", "D"), asSet(sweeper.getTypeNames()));
+		
+		sweeper.removeRoots(types("D"));
+		assertEquals(types(), asSet(sweeper.getTypeNames()));
+	}
+	
+	@Test
+	public void testRootThatIsAlsoADependency() throws IOException {
+		val sweeper = sweeper();
+		sweeper.addRoots(types("A", "C"));
+		sweeper.removeRoots(types("C"));
+		assertEquals(types("A", "B", "C"), asSet(sweeper.getTypeNames()));
+		
+		sweeper.removeRoots(types("A"));
+		assertEquals(types(), asSet(sweeper.getTypeNames()));
+	}
+	
+	@Test
+	public void testInvalidateKeepsReachableTypes() throws IOException {
+		val sweeper = sweeper();
+		sweeper.addRoots(types("A", "D"));
+		sweeper.invalidate(TestIncrementalSweep.class.getClassLoader(), types("B"));
+		assertEquals(types("A", "B", "C", "D"), asSet(sweeper.getTypeNames()));
+	}
+	
+	@Test
+	public void testMaxDepth() throws IOException {
+		val sweeper = sweeper();
+		sweeper.setMaxDepth(1);
+		sweeper.addRoots(types("A"));
+		assertEquals(types("A", "B"), asSet(sweeper.getTypeNames()));
+		assertEquals(types("C"), asSet(sweeper.getFrontier()));
+		
+		sweeper.setMaxDepth(2);
+		sweeper.resume();
+		assertEquals(types("A", "B", "C"), asSet(sweeper.getTypeNames()));
+		assertEquals(types(), asSet(sweeper.getFrontier()));
+	}
+	
+	@Test
+	public void testMaxTypes() throws IOException {
+		val sweeper = sweeper();
+		sweeper.setMaxTypes(1);
+		sweeper.addRoots(types("A"));
+		assertEquals(types("A"), asSet(sweeper.getTypeNames()));
+		assertEquals(types("B"), asSet(sweeper.getFrontier()));
+		
+		sweeper.removeRoots(types("A"));
+		assertEquals(types(), asSet(sweeper.getFrontier()));
+	}
+	
+	@Test
+	public void testDepthFollowsRootChanges() throws IOException {
+		val sweeper = sweeper();
+		sweeper.setMaxDepth(1);
+		sweeper.addRoots(types("A"));
+		assertEquals(types("A", "B"), asSet(sweeper.getTypeNames()));
+		assertEquals(types("C"), asSet(sweeper.getFrontier()));
+		
+		sweeper.addRoots(types("B"));
+		assertEquals(types("A", "B", "C"), asSet(sweeper.getTypeNames()));
+		assertEquals(types(), asSet(sweeper.getFrontier()));
+		
+		sweeper.removeRoots(types("B"));
+		assertEquals(types("A", "B"), asSet(sweeper.getTypeNames()));
+		assertEquals(types("C"), asSet(sweeper.getFrontier()));
+		
+		sweeper.invalidate(TestIncrementalSweep.class.getClassLoader(), types("B"));
+		assertEquals(types("A", "B"), asSet(sweeper.getTypeNames()));
+		assertEquals(types("C"), asSet(sweeper.getFrontier()));
+	}
+	
+	@Test
+	public void testShorterPathReachesScannedDependencies() throws IOException {
+		val sweeper = sweeper();
+		sweeper.setMaxDepth(3);
+		sweeper.addRoots(types("P"));
+		assertEquals(types("P", "Q", "R", "S"), asSet(sweeper.getTypeNames()));
+		assertEquals(types("T"), asSet(sweeper.getFrontier()));
+		
+		// S is scanned already, but now only 1 away from a root, which brings T within reach.
+		sweeper.addRoots(types("U"));
+		assertEquals(types("P", "Q", "R", "S", "T", "U"), asSet(sweeper.getTypeNames()));
+		assertEquals(types(), asSet(sweeper.getFrontier()));
+		
+		val full = sweeper();
+		full.setMaxDepth(3);
+		full.addRoots(types("P", "U"));
+		assertEquals(asSet(full.getTypeNames()), asSet(sweeper.getTypeNames()));
+	}
+	
+	@Test
+	public void testDepthsFollowRootChangesPastMaxTypes() throws IOException {
+		val sweeper = sweeper();
+		sweeper.setMaxDepth(3);
+		sweeper.setMaxTypes(5);
+		sweeper.addRoots(types("P"));
+		sweeper.addRoots(types("U"));
+		assertEquals(types("P", "Q", "R", "S", "U"), asSet(sweeper.getTypeNames()));
+		assertEquals(types("T"), asSet(sweeper.getFrontier()));
+		
+		sweeper.setMaxTypes(6);
+		sweeper.resume();
+		assertEquals(types("P", "Q", "R", "S", "T", "U"), asSet(sweeper.getTypeNames()));
+	}
+}
@@ -0,0 +1,98 @@
+package com.zwitserloot.stubber;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import lombok.Cleanup;
+import lombok.val;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.zwitserloot.stubber.reader.PlatformClassIndex;
+
+public class TestPlatformClassIndex {
+	/** A type that's new in each of these releases, which the newest release in their ct.sym doesn't have yet. */
+	private static final Map<String, String> NEW_IN_RELEASE = ImmutableMap.of(
+			"11", "java/net/http/HttpClient",
+			"17", "java/util/HexFormat",
+			"21", "java/util/SequencedCollection");
+	
+	private static File tempHome() throws IOException {
+		File home = File.createTempFile("jdk", "");
+		home.delete();
+		new File(home, "lib").mkdirs();
+		home.deleteOnExit();
+		new File(home, "lib").deleteOnExit();
+		return home;
+	}
+	
+	@Test
+	public void testRuntime() throws IOException {
+		val index = PlatformClassIndex.forRuntime();
+		assertTrue(index.contains("java/lang/Object"));
+		assertTrue(index.contains("java/util/Map$Entry"));
+		assertTrue(index.contains("javax/swing/JButton"));
+		assertFalse(index.contains("com/zwitserloot/stubber/TestPlatformClassIndex"));
+	}
+	
+	@Test
+	public void testRuntimeKnowsInternalTypes() throws IOException {
+		val index = PlatformClassIndex.forRuntime();
+		assertTrue(index.contains("sun/nio/ch/SelectorImpl"));
+		assertFalse(index.contains("sun/nio/ch/NoSuchType"));
+	}
+	
+	@Test
+	public void testRuntimeKnowsTypesNewInItsRelease() throws IOException {
+		String type = NEW_IN_RELEASE.get(System.getProperty("java.specification.version"));
+		if (type != null) assertTrue(PlatformClassIndex.forRuntime().contains(type));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testModularJreIsRejected() throws IOException {
+		File home = tempHome();
+		for (String name : new String[] {"lib/modules", "lib/jrt-fs.jar"}) {
+			File file = new File(home, name);
+			new FileOutputStream(file).close();
+			file.deleteOnExit();
+		}
+		PlatformClassIndex.forJavaHome(home);
+	}
+	
+	@Test
+	public void testCtSymUsesNewestRelease() throws IOException {
+		File home = tempHome();
+		File ctSym = new File(home, "lib/ct.sym");
+		ctSym.deleteOnExit();
+		
+		{
+			@Cleanup val out = new ZipOutputStream(new FileOutputStream(ctSym));
+			for (String entry : new String[] {
+					"789A/java.base/java/lang/Object.sig",
+					"9A/java.desktop/javax/swing/JButton.sig",
+					"789/java.base/java/lang/Removed.sig",
+					"8/java/lang/Old.sig",
+					"A/java.base/java/util/Map$Entry.sig",
+					"B/system-modules",
+			}) {
+				out.putNextEntry(new ZipEntry(entry));
+				out.closeEntry();
+			}
+		}
+		
+		val index = PlatformClassIndex.forJavaHome(home);
+		assertTrue(index.contains("java/lang/Object"));
+		assertTrue(index.contains("javax/swing/JButton"));
+		assertTrue(index.contains("java/util/Map$Entry"));
+		assertFalse(index.contains("java/lang/Removed"));
+		assertFalse(index.contains("java/lang/Old"));
+	}
+}
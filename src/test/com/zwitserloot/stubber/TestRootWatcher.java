@@ -0,0 +1,76 @@
+package com.zwitserloot.stubber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import lombok.Cleanup;
+import lombok.val;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class TestRootWatcher {
+	private File dir;
+	
+	@Before
+	public void createRoot() throws IOException {
+		dir = File.createTempFile("root", "");
+		dir.delete();
+		dir.mkdir();
+	}
+	
+	@After
+	public void deleteRoot() {
+		delete(dir);
+	}
+	
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) for (File f : files) delete(f);
+		file.delete();
+	}
+	
+	private void write(String type, int size) throws IOException {
+		File file = new File(dir, type + ".class");
+		file.getParentFile().mkdirs();
+		@Cleanup val out = new FileOutputStream(file);
+		out.write(new byte[size]);
+	}
+	
+	@Test(timeout = 10000)
+	public void testReportsAddedChangedAndRemovedTypes() throws Exception {
+		write("com/foo/X", 1);
+		write("com/foo/Y", 1);
+		write("com/foo/Unchanged", 1);
+		val watcher = new RootWatcher(ImmutableList.of(dir.getPath()));
+		assertEquals(ImmutableSet.of("com/foo/X", "com/foo/Y", "com/foo/Unchanged"), watcher.getTypes());
+		
+		write("com/foo/X", 2);
+		write("com/foo/Z", 1);
+		new File(dir, "com/foo/Y.class").delete();
+		assertEquals(ImmutableSet.of("com/foo/X", "com/foo/Y", "com/foo/Z"), watcher.awaitChanges());
+		assertEquals(ImmutableSet.of("com/foo/X", "com/foo/Z", "com/foo/Unchanged"), watcher.getTypes());
+	}
+	
+	@Test
+	public void testWaitsUntilChangesSettle() throws Exception {
+		val watcher = new RootWatcher(ImmutableList.of(dir.getPath()));
+		assertNull(watcher.poll());
+		
+		// Each poll sees a new class file, as if a compiler were still busy writing them.
+		for (int i = 0; i < 5; i++) {
+			write("com/foo/T" + i, 1);
+			assertNull(watcher.poll());
+		}
+		assertEquals(ImmutableSet.of("com/foo/T0", "com/foo/T1", "com/foo/T2", "com/foo/T3", "com/foo/T4"), watcher.poll());
+		assertNull(watcher.poll());
+	}
+}
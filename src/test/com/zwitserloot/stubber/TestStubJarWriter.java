@@ -0,0 +1,79 @@
+package com.zwitserloot.stubber;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.jar.JarFile;
+
+import lombok.Cleanup;
+import lombok.val;
+
+import org.junit.Test;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import com.zwitserloot.stubber.reader.ClassFiles;
+import com.zwitserloot.stubber.writer.StubJarWriter;
+
+public class TestStubJarWriter {
+	private static final String PREFIX = "com/zwitserloot/stubber/TestStubJarWriter$";
+	
+	public static class A {
+		public int a;
+	}
+	
+	public static class B {
+		public A b() {
+			return null;
+		}
+	}
+	
+	private static class CountingClassLoader extends ClassLoader {
+		final Multiset<String> reads = HashMultiset.create();
+		
+		CountingClassLoader() {
+			super(TestStubJarWriter.class.getClassLoader());
+		}
+		
+		@Override public InputStream getResourceAsStream(String name) {
+			reads.add(name);
+			return super.getResourceAsStream(name);
+		}
+	}
+	
+	private static Set<String> types(String... names) {
+		val out = ImmutableSet.<String>builder();
+		for (String name : names) out.add(PREFIX + name);
+		return out.build();
+	}
+	
+	private static Set<String> typesIn(File jar) throws IOException {
+		@Cleanup JarFile jf = new JarFile(jar);
+		return ImmutableSet.copyOf(ClassFiles.inJar(jf).keySet());
+	}
+	
+	@Test
+	public void testOnlyInvalidatedTypesAreStubbedAgain() throws IOException {
+		File out = File.createTempFile("stubs", ".jar");
+		out.deleteOnExit();
+		
+		val cl = new CountingClassLoader();
+		val writer = new StubJarWriter(cl);
+		writer.write(types("A", "B"), out.getPath());
+		assertEquals(types("A", "B"), typesIn(out));
+		assertEquals(1, cl.reads.count(PREFIX + "A.class"));
+		assertEquals(1, cl.reads.count(PREFIX + "B.class"));
+		
+		val cl2 = new CountingClassLoader();
+		writer.invalidate(cl2, types("A"));
+		writer.write(types("A", "B"), out.getPath());
+		assertEquals(types("A", "B"), typesIn(out));
+		assertEquals(1, cl2.reads.count(PREFIX + "A.class"));
+		assertEquals(0, cl2.reads.count(PREFIX + "B.class"));
+		assertEquals(1, cl.reads.count(PREFIX + "B.class"));
+	}
+}